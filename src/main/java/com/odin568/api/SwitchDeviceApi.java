@@ -2,6 +2,7 @@ package com.odin568.api;
 
 import com.odin568.helper.SwitchState;
 import com.odin568.service.SwitchDeviceService;
+import com.odin568.tracing.SwitchTracing;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.RestController;
@@ -10,17 +11,19 @@ import org.springframework.web.bind.annotation.RestController;
 public class SwitchDeviceApi {
 
     private final SwitchDeviceService switchDeviceService;
+    private final SwitchTracing tracing;
 
     @Autowired
-    public SwitchDeviceApi(SwitchDeviceService switchDeviceService)
+    public SwitchDeviceApi(SwitchDeviceService switchDeviceService, SwitchTracing tracing)
     {
         this.switchDeviceService = switchDeviceService;
+        this.tracing = tracing;
     }
 
     @GetMapping("/switchDeviceApi/toggle")
     public String ToggleDevice() {
         try {
-            return switchDeviceService.SwitchPowerState(SwitchState.TOGGLE).toString();
+            return tracing.call("SwitchDeviceApi /toggle", () -> switchDeviceService.SwitchPowerState(SwitchState.TOGGLE)).toString();
         }
         catch (RuntimeException ex) {
             return "ERROR: " + ex.getMessage();
@@ -30,7 +33,7 @@ public class SwitchDeviceApi {
     @GetMapping("/switchDeviceApi/switchOn")
     public String SwitchDeviceOn() {
         try {
-            return switchDeviceService.SwitchPowerState(SwitchState.ON).toString();
+            return tracing.call("SwitchDeviceApi /switchOn", () -> switchDeviceService.SwitchPowerState(SwitchState.ON)).toString();
         }
         catch (RuntimeException ex) {
             return "ERROR: " + ex.getMessage();
@@ -40,7 +43,7 @@ public class SwitchDeviceApi {
     @GetMapping("/switchDeviceApi/switchOff")
     public String SwitchDeviceOff() {
         try {
-            return switchDeviceService.SwitchPowerState(SwitchState.OFF).toString();
+            return tracing.call("SwitchDeviceApi /switchOff", () -> switchDeviceService.SwitchPowerState(SwitchState.OFF)).toString();
         }
         catch (RuntimeException ex) {
             return "ERROR: " + ex.getMessage();
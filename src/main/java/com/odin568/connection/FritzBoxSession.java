@@ -3,6 +3,8 @@ package com.odin568.connection;
 import com.github.kaklakariada.fritzbox.FritzBoxException;
 import com.github.kaklakariada.fritzbox.HomeAutomation;
 import com.odin568.helper.SwitchState;
+import com.odin568.tracing.SwitchTracing;
+import io.opentelemetry.api.trace.Span;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Value;
@@ -10,11 +12,14 @@ import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
 import jakarta.annotation.PostConstruct;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.util.Optional;
 import java.util.TimeZone;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
 
 @Component
 public class FritzBoxSession
@@ -23,16 +28,23 @@ public class FritzBoxSession
     private final String url;
     private final String username;
     private final String password;
+    private final SwitchTracing tracing;
 
-    private HomeAutomation cachedHomeAutomation;
+    private final ReentrantLock sessionLock = new ReentrantLock();
+
+    private volatile HomeAutomation cachedHomeAutomation;
+
+    private volatile boolean loggedOut = false;
 
     public FritzBoxSession(@Value("${fritzbox.url}") String url,
                            @Value("${fritzbox.username}") String username,
-                           @Value("${fritzbox.password}") String password)
+                           @Value("${fritzbox.password}") String password,
+                           final SwitchTracing tracing)
     {
         this.url = url;
         this.username = username;
         this.password = password;
+        this.tracing = tracing;
     }
 
     @PostConstruct
@@ -48,77 +60,155 @@ public class FritzBoxSession
         connect();
     }
 
-    private synchronized void connect()
+    private void connect()
     {
-        if (cachedHomeAutomation == null) {
-            try {
-                LOG.debug("Logging in...");
-                cachedHomeAutomation = HomeAutomation.connect(url, username, password);
-            }
-            catch (Exception ex) {
-                LOG.error("Unable to create connection", ex);
+        sessionLock.lock();
+        try {
+            if (cachedHomeAutomation == null && !loggedOut) {
+                try {
+                    LOG.debug("Logging in...");
+                    cachedHomeAutomation = HomeAutomation.connect(url, username, password);
+                }
+                catch (Exception ex) {
+                    LOG.error("Unable to create connection", ex);
+                }
             }
         }
+        finally {
+            sessionLock.unlock();
+        }
     }
 
     @Scheduled(fixedDelay = 10, initialDelay = 10, timeUnit = TimeUnit.MINUTES)
-    private synchronized void reconnect() {
-        if (cachedHomeAutomation != null) {
+    private void reconnect() {
+        sessionLock.lock();
+        try {
+            disconnect();
+            connect();
+        }
+        finally {
+            sessionLock.unlock();
+        }
+    }
+
+    private void disconnect()
+    {
+        HomeAutomation homeAutomation = cachedHomeAutomation;
+        if (homeAutomation != null) {
             try {
                 LOG.debug("Logging out...");
-                cachedHomeAutomation.logout();
+                homeAutomation.logout();
             }
             catch (Exception ex) {
                 LOG.error("Unable to close connection", ex);
             }
             cachedHomeAutomation = null;
         }
-        connect();
     }
 
-    public synchronized void validateSwitchDevice(final String switchId) {
-        if (!cachedHomeAutomation.getSwitchList().contains(switchId)) {
-            throw new FritzBoxException("Switch not found");
+    /**
+     * Close the session for good to free the session slot on the FritzBox. No reconnect happens afterwards.
+     * If the session is still in use after the given timeout, logout is done anyway without waiting for it.
+     * @param timeout maximum time to wait for running FritzBox calls
+     */
+    public void logout(final Duration timeout)
+    {
+        loggedOut = true;
+        boolean locked = false;
+        try {
+            locked = sessionLock.tryLock(timeout.toNanos(), TimeUnit.NANOSECONDS);
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        if (!locked) {
+            LOG.warn("Session still in use, logging out anyway");
         }
-        if (!cachedHomeAutomation.getSwitchPresent(switchId)) {
-            throw new FritzBoxException("Switch currently not present");
+        try {
+            disconnect();
         }
+        finally {
+            if (locked) {
+                sessionLock.unlock();
+            }
+        }
+    }
+
+    public void validateSwitchDevice(final String switchId) {
+        runLocked("validateSwitchDevice", () -> {
+            if (!tracing.callNested("AHA getSwitchList", cachedHomeAutomation::getSwitchList).contains(switchId)) {
+                throw new FritzBoxException("Switch not found");
+            }
+            if (!tracing.callNested("AHA getSwitchPresent", () -> cachedHomeAutomation.getSwitchPresent(switchId))) {
+                throw new FritzBoxException("Switch currently not present");
+            }
+        });
     }
 
-    public synchronized void switchDevice(final String switchId, final SwitchState targetState)
+    public void switchDevice(final String switchId, final SwitchState targetState)
     {
-        switch(targetState) {
-            case ON -> cachedHomeAutomation.switchPowerState(switchId, true);
-            case OFF -> cachedHomeAutomation.switchPowerState(switchId, false);
-            case TOGGLE -> cachedHomeAutomation.togglePowerState(switchId);
-        }
+        runLocked("switchDevice", () -> {
+            switch(targetState) {
+                case ON -> tracing.runNested("AHA switchPowerState", () -> cachedHomeAutomation.switchPowerState(switchId, true));
+                case OFF -> tracing.runNested("AHA switchPowerState", () -> cachedHomeAutomation.switchPowerState(switchId, false));
+                case TOGGLE -> tracing.runNested("AHA togglePowerState", () -> cachedHomeAutomation.togglePowerState(switchId));
+            }
+        });
     }
 
-    public synchronized SwitchState getDeviceState(final String switchId)
+    public SwitchState getDeviceState(final String switchId)
     {
-        return cachedHomeAutomation.getSwitchState(switchId) ? SwitchState.ON : SwitchState.OFF;
+        return callLocked("getDeviceState", () ->
+                tracing.callNested("AHA getSwitchState", () -> cachedHomeAutomation.getSwitchState(switchId)) ? SwitchState.ON : SwitchState.OFF);
     }
 
     /**
      * Try to find any motion detector. If found, return the latest motion detected time.
      * @return LocalDateTime with last motion detected or empty
      */
-    public synchronized Optional<LocalDateTime> getLastMotionFromMotionDetectors()
+    public Optional<LocalDateTime> getLastMotionFromMotionDetectors()
     {
-        long lastMotionDetected = 0;
-        for(var device : cachedHomeAutomation.getDeviceListInfos().getDevices()) {
-            if (!device.isPresent() || device.getEtsiUnitInfo() == null || device.getAlert() == null) {
-                continue;
+        return callLocked("getLastMotionFromMotionDetectors", () -> {
+            long lastMotionDetected = 0;
+            for(var device : tracing.callNested("AHA getDeviceListInfos", cachedHomeAutomation::getDeviceListInfos).getDevices()) {
+                if (!device.isPresent() || device.getEtsiUnitInfo() == null || device.getAlert() == null) {
+                    continue;
+                }
+                if (device.getEtsiUnitInfo().getUnittype() == 515) {
+                    lastMotionDetected = Math.max(lastMotionDetected, device.getAlert().getLastAlertChgTimestamp());
+                }
             }
-            if (device.getEtsiUnitInfo().getUnittype() == 515) {
-                lastMotionDetected = Math.max(lastMotionDetected, device.getAlert().getLastAlertChgTimestamp());
+            if (lastMotionDetected > 0) {
+                return Optional.of(
+                        LocalDateTime.ofInstant(
+                                Instant.ofEpochMilli(lastMotionDetected * 1000), TimeZone.getDefault().toZoneId()));
             }
+            return Optional.empty();
+        });
+    }
+
+    /**
+     * Run the given action while holding the session lock.
+     * Time spent waiting for the lock is traced separately from the action itself.
+     */
+    private <T> T callLocked(final String operation, final Supplier<T> action)
+    {
+        Span lockWait = tracing.startNestedSpan("FritzBoxSession lockWait");
+        sessionLock.lock();
+        try {
+            lockWait.end();
+            return tracing.callNested("FritzBoxSession " + operation, action);
         }
-        if (lastMotionDetected > 0) {
-            return Optional.of(
-                    LocalDateTime.ofInstant(
-                            Instant.ofEpochMilli(lastMotionDetected * 1000), TimeZone.getDefault().toZoneId()));
+        finally {
+            sessionLock.unlock();
         }
-        return Optional.empty();
+    }
+
+    private void runLocked(final String operation, final Runnable action)
+    {
+        callLocked(operation, () -> {
+            action.run();
+            return null;
+        });
     }
 }
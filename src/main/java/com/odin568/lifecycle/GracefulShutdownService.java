@@ -0,0 +1,111 @@
+package com.odin568.lifecycle;
+
+import com.odin568.connection.FritzBoxSession;
+import com.odin568.schedule.AutoSwitchingService;
+import com.odin568.service.SwitchDeviceService;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.util.Properties;
+
+/**
+ * Stops accepting switch commands on shutdown and drains the running ones before the FritzBox session is closed.
+ * Runs in the default phase, so it is stopped before the web server and before any bean is destroyed.
+ */
+@Service
+public class GracefulShutdownService implements SmartLifecycle
+{
+    private static final Logger LOG = LoggerFactory.getLogger(GracefulShutdownService.class);
+
+    private final SwitchDeviceService switchDeviceService;
+    private final AutoSwitchingService autoSwitchingService;
+    private final FritzBoxSession fritzBoxSession;
+    private final StateFile stateFile;
+    private final Duration drainTimeout;
+
+    private volatile boolean running = false;
+
+    public GracefulShutdownService(final SwitchDeviceService switchDeviceService,
+                                   final AutoSwitchingService autoSwitchingService,
+                                   final FritzBoxSession fritzBoxSession,
+                                   final StateFile stateFile,
+                                   final MeterRegistry meterRegistry,
+                                   @Value("${shutdown.drainTimeoutSeconds:20}") long drainTimeoutSeconds)
+    {
+        if (drainTimeoutSeconds < 0) {
+            throw new IllegalArgumentException("drainTimeoutSeconds is negative");
+        }
+        this.switchDeviceService = switchDeviceService;
+        this.autoSwitchingService = autoSwitchingService;
+        this.fritzBoxSession = fritzBoxSession;
+        this.stateFile = stateFile;
+        this.drainTimeout = Duration.ofSeconds(drainTimeoutSeconds);
+
+        // Drain time is only known while exiting, so publish the one saved on last shutdown
+        String lastDrainMillis = stateFile.GetRestoredState().getProperty("lastDrainMillis");
+        if (lastDrainMillis != null) {
+            try {
+                double lastDrainSeconds = Long.parseLong(lastDrainMillis) / 1000d;
+                Gauge.builder("switch.shutdown.drain.last", () -> lastDrainSeconds)
+                        .description("Time waiting for running switch commands on last shutdown")
+                        .baseUnit("seconds")
+                        .register(meterRegistry);
+            }
+            catch (NumberFormatException ex) {
+                LOG.error("Invalid drain time in state: " + lastDrainMillis, ex);
+            }
+        }
+    }
+
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    @Override
+    public void stop()
+    {
+        LOG.info("Started graceful shutdown");
+
+        switchDeviceService.StopAcceptingCommands();
+
+        long drainStart = System.nanoTime();
+        boolean drained = false;
+        try {
+            drained = switchDeviceService.AwaitInFlightCommands(drainTimeout);
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        Duration drainTime = Duration.ofNanos(System.nanoTime() - drainStart);
+
+        if (drained) {
+            LOG.info("Drained switch commands in {} ms", drainTime.toMillis());
+        }
+        else {
+            LOG.warn("Switch commands not drained within {} seconds, device state might be unknown", drainTimeout.toSeconds());
+        }
+
+        Properties state = new Properties();
+        state.setProperty("lastDrainMillis", String.valueOf(drainTime.toMillis()));
+        autoSwitchingService.SavePendingSwitchOff(state);
+        stateFile.Save(state);
+        // Use what is left of the deadline to wait for a running FritzBox call, log out anyway afterwards
+        Duration remaining = drainTimeout.minus(drainTime);
+        fritzBoxSession.logout(remaining.isNegative() ? Duration.ZERO : remaining);
+        running = false;
+
+        LOG.info("Finished graceful shutdown");
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+}
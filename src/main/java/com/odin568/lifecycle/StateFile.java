@@ -0,0 +1,108 @@
+package com.odin568.lifecycle;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/**
+ * File keeping state across restarts. Read once on start, written on shutdown.
+ */
+@Component
+public class StateFile
+{
+    private static final Logger LOG = LoggerFactory.getLogger(StateFile.class);
+
+    private final Path path;
+    private final Properties restoredState = new Properties();
+
+    public StateFile(@Value("${schedule.stateFile:}") final String stateFile)
+    {
+        this.path = stateFile == null || stateFile.isBlank() ? null : Path.of(stateFile).toAbsolutePath();
+    }
+
+    @PostConstruct
+    private void Load()
+    {
+        if (path == null || !Files.exists(path)) {
+            return;
+        }
+        try (Reader reader = Files.newBufferedReader(path)) {
+            restoredState.load(reader);
+        }
+        catch (Exception ex) {
+            LOG.error("Unable to read state from " + path, ex);
+        }
+    }
+
+    /**
+     * @return state saved on last shutdown, empty if there is none
+     */
+    public Properties GetRestoredState()
+    {
+        Properties state = new Properties();
+        state.putAll(restoredState);
+        return state;
+    }
+
+    /**
+     * Delete the file once its state was restored, so it is not picked up again after a crash.
+     */
+    public void Delete()
+    {
+        if (path == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(path);
+        }
+        catch (IOException ex) {
+            LOG.error("Unable to delete state file " + path, ex);
+        }
+    }
+
+    /**
+     * Replace the file atomically, so that a kill while writing never leaves a partial file behind.
+     * An empty state removes an old file instead.
+     */
+    public void Save(final Properties state)
+    {
+        if (path == null) {
+            return;
+        }
+        if (state.isEmpty()) {
+            LOG.debug("No state to save");
+            Delete();
+            return;
+        }
+        Path tempFile = null;
+        try {
+            tempFile = Files.createTempFile(path.getParent(), path.getFileName().toString(), ".tmp");
+            try (Writer writer = Files.newBufferedWriter(tempFile)) {
+                state.store(writer, "FE2_SmartHome state");
+            }
+            Files.move(tempFile, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            LOG.info("Saved state to {}", path);
+        }
+        catch (IOException ex) {
+            LOG.error("Unable to save state to " + path, ex);
+            if (tempFile != null) {
+                try {
+                    Files.deleteIfExists(tempFile);
+                }
+                catch (IOException ignored) {
+                    // Nothing left to do
+                }
+            }
+        }
+    }
+}
@@ -2,8 +2,8 @@ package com.odin568.schedule;
 
 import com.odin568.helper.Event;
 import com.odin568.helper.SwitchState;
+import com.odin568.lifecycle.StateFile;
 import com.odin568.service.CalendarService;
-import com.odin568.service.MotionDetectorService;
 import com.odin568.service.SwitchDeviceService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -12,9 +12,12 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
+import jakarta.annotation.PostConstruct;
 import java.time.LocalDateTime;
 import java.util.Optional;
+import java.util.Properties;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Pattern;
 
 @Service
@@ -28,9 +31,11 @@ public class AutoSwitchingService
     private final Pattern titleRegex;
     private final Pattern locationRegex;
 
-    private LocalDateTime detectedSwitchOnTimestamp = null;
+    // Shared with MotionPollingService, which runs on its own thread.
+    // Resets use compare-and-set on the value the decision was based on, so no lock is held during FritzBox calls.
+    private final AtomicReference<LocalDateTime> detectedSwitchOnTimestamp = new AtomicReference<>();
 
-    private String switchOnEvent = null;
+    private volatile String switchOnEvent = null;
 
     @Autowired
     private CalendarService calendarService;
@@ -39,7 +44,7 @@ public class AutoSwitchingService
     private SwitchDeviceService switchDeviceService;
 
     @Autowired
-    private MotionDetectorService motionDetectorService;
+    private StateFile stateFile;
 
     public AutoSwitchingService(@Value("${schedule.switchoff.defaultSwitchOnMinutes:60}") long defaultSwitchOnMinutes,
                                 @Value("${schedule.switchoff.defaultMotionMinutes:10}") long defaultMotionMinutes,
@@ -59,6 +64,45 @@ public class AutoSwitchingService
         }
     }
 
+    /**
+     * Restore a pending switch off saved on last shutdown, so that the switch is not kept on forever after a restart.
+     */
+    @PostConstruct
+    private void RestorePendingSwitchOff()
+    {
+        Properties state = stateFile.GetRestoredState();
+        if (state.isEmpty()) {
+            return;
+        }
+        try {
+            String pendingSwitchOff = state.getProperty("pendingSwitchOff");
+            if (pendingSwitchOff != null) {
+                detectedSwitchOnTimestamp.set(LocalDateTime.parse(pendingSwitchOff).minusMinutes(defaultSwitchOnMinutes));
+                LOG.info("Restored pending switch off at {}", pendingSwitchOff);
+            }
+            switchOnEvent = state.getProperty("switchOnEvent");
+
+            // Only delete once restored successfully, keep it for inspection otherwise
+            stateFile.Delete();
+        }
+        catch (RuntimeException ex) {
+            LOG.error("Unable to restore pending switch off", ex);
+        }
+    }
+
+    /**
+     * Add the pending switch off to the given state to be picked up on next start.
+     * Does not wait for a running switching decision, so it can be called while one is stuck.
+     */
+    public void SavePendingSwitchOff(final Properties state)
+    {
+        GetPendingSwitchOffTimestamp().ifPresent(timestamp -> state.setProperty("pendingSwitchOff", timestamp.toString()));
+        String event = switchOnEvent;
+        if (event != null) {
+            state.setProperty("switchOnEvent", event);
+        }
+    }
+
     @Scheduled(initialDelayString = "${schedule.initialDelayMinutes:${schedule.fixedDelayMinutes:}}", fixedDelayString = "${schedule.fixedDelayMinutes:}", timeUnit = TimeUnit.MINUTES)
     private void ScheduledSwitching()
     {
@@ -111,7 +155,7 @@ public class AutoSwitchingService
             // Save event to avoid situation that switch is re-started immediately if manually turned off during event
             switchOnEvent = activeCalendarEvent.get().toString();
             // Simulate detection of switch on so that it will be shut off at the end-date of the event
-            detectedSwitchOnTimestamp = activeCalendarEvent.get().getEndDate().minusMinutes(defaultSwitchOnMinutes);
+            detectedSwitchOnTimestamp.set(activeCalendarEvent.get().getEndDate().minusMinutes(defaultSwitchOnMinutes));
         }
         catch (RuntimeException ex) {
             LOG.error("Failed on ScheduledSwitchOn", ex);
@@ -130,8 +174,9 @@ public class AutoSwitchingService
         }
 
         // Do not switch off if switch on was detected previously and time limit is not yet reached
-        if (detectedSwitchOnTimestamp != null) {
-            LocalDateTime calculatedSwitchOffTimestamp = detectedSwitchOnTimestamp.plusMinutes(defaultSwitchOnMinutes);
+        LocalDateTime switchOnTimestamp = detectedSwitchOnTimestamp.get();
+        if (switchOnTimestamp != null) {
+            LocalDateTime calculatedSwitchOffTimestamp = switchOnTimestamp.plusMinutes(defaultSwitchOnMinutes);
             if (LocalDateTime.now().isBefore(calculatedSwitchOffTimestamp)) {
                 LOG.debug("Skipping because did not reach calculated switch off time yet");
                 return;
@@ -141,34 +186,27 @@ public class AutoSwitchingService
         try {
             // If switch is already off - reset for next round
             if (switchDeviceService.GetSwitchPowerState() == SwitchState.OFF) {
-                detectedSwitchOnTimestamp = null;
+                detectedSwitchOnTimestamp.compareAndSet(switchOnTimestamp, null);
                 LOG.debug("Switch already turned off");
                 return;
             }
 
             // First 'on' detected, save timestamp for next round
-            if (detectedSwitchOnTimestamp == null) {
-                LOG.info("Detected switch is turned on");
-                detectedSwitchOnTimestamp = LocalDateTime.now();
+            if (switchOnTimestamp == null) {
+                if (detectedSwitchOnTimestamp.compareAndSet(null, LocalDateTime.now())) {
+                    LOG.info("Detected switch is turned on");
+                }
                 return;
             }
 
-            // Now we need to switch off unless motion detection is available and motion was detected
-            Optional<LocalDateTime> lastMotionDetected = motionDetectorService.getLastMotionFromMotionDetectors();
-            if (lastMotionDetected.isPresent() && defaultMotionMinutes > 0) {
-                // Ensure switch is turned off only when no motion for at least {defaultSwitchOnMinutes} minutes
-                if (lastMotionDetected.get().isBefore(LocalDateTime.now().minusMinutes(defaultMotionMinutes))) {
-                    LOG.info("Switching device off as no motion was detected for {} minutes", defaultMotionMinutes);
-                    switchDeviceService.SwitchPowerState(SwitchState.OFF);
-                    detectedSwitchOnTimestamp = null;
-                }
-            }
-            else {
-                // Otherwise, we reached the limit, switch off
-                LOG.info("Switching device off because it is switched on since {} minutes", defaultSwitchOnMinutes);
-                switchDeviceService.SwitchPowerState(SwitchState.OFF);
-                detectedSwitchOnTimestamp = null;
+            // With motion detection, MotionPollingService pushes the switch off decision via OnMotionUpdate
+            if (defaultMotionMinutes > 0) {
+                LOG.debug("Skipping because switch off is decided by motion polling");
+                return;
             }
+
+            // Otherwise, we reached the limit, switch off
+            SwitchOffUnlessMotionDetected(switchOnTimestamp, Optional.empty());
         }
         catch (RuntimeException ex) {
             LOG.error("Failed on ScheduledSwitchOff", ex);
@@ -177,4 +215,91 @@ public class AutoSwitchingService
         LOG.debug("Finished ScheduledSwitchOff");
     }
 
+    /**
+     * Push a fresh motion reading, e.g. from {@link MotionPollingService}, so that the switch off decision
+     * does not have to wait for the next scheduled run.
+     * @param lastMotionDetected LocalDateTime with last motion detected or empty
+     */
+    public void OnMotionUpdate(Optional<LocalDateTime> lastMotionDetected)
+    {
+        LOG.debug("Started MotionUpdate");
+
+        LocalDateTime switchOnTimestamp = detectedSwitchOnTimestamp.get();
+        if (switchOnTimestamp == null || LocalDateTime.now().isBefore(switchOnTimestamp.plusMinutes(defaultSwitchOnMinutes))) {
+            LOG.debug("Skipping because no switch off is due");
+            return;
+        }
+        if (calendarService.GetActiveEvent().isPresent()) {
+            LOG.debug("Skipping because there is an active calendar event");
+            return;
+        }
+
+        try {
+            // If switch was turned off in the meantime - reset so that polling backs off
+            if (switchDeviceService.GetSwitchPowerState() == SwitchState.OFF) {
+                detectedSwitchOnTimestamp.compareAndSet(switchOnTimestamp, null);
+                LOG.debug("Switch already turned off");
+                return;
+            }
+
+            SwitchOffUnlessMotionDetected(switchOnTimestamp, lastMotionDetected);
+        }
+        catch (RuntimeException ex) {
+            LOG.error("Failed on MotionUpdate", ex);
+        }
+
+        LOG.debug("Finished MotionUpdate");
+    }
+
+    /**
+     * @return time at which the switch is turned off at the earliest, empty if switch on was not detected
+     */
+    public Optional<LocalDateTime> GetPendingSwitchOffTimestamp()
+    {
+        LocalDateTime switchOnTimestamp = detectedSwitchOnTimestamp.get();
+        if (switchOnTimestamp == null) {
+            return Optional.empty();
+        }
+        return Optional.of(switchOnTimestamp.plusMinutes(defaultSwitchOnMinutes));
+    }
+
+    public long GetDefaultMotionMinutes()
+    {
+        return defaultMotionMinutes;
+    }
+
+    /**
+     * @param switchOnTimestamp detected switch on the decision is based on, switch off is skipped if it changed meanwhile
+     */
+    private void SwitchOffUnlessMotionDetected(LocalDateTime switchOnTimestamp, Optional<LocalDateTime> lastMotionDetected)
+    {
+        String reason;
+        if (lastMotionDetected.isPresent() && defaultMotionMinutes > 0) {
+            // Ensure switch is turned off only when no motion for at least {defaultSwitchOnMinutes} minutes
+            if (!lastMotionDetected.get().isBefore(LocalDateTime.now().minusMinutes(defaultMotionMinutes))) {
+                return;
+            }
+            reason = "no motion was detected for " + defaultMotionMinutes + " minutes";
+        }
+        else {
+            // Otherwise, we reached the limit, switch off
+            reason = "it is switched on since " + defaultSwitchOnMinutes + " minutes";
+        }
+
+        // Claim the switch off first, so that a concurrent decision does not switch off again
+        if (!detectedSwitchOnTimestamp.compareAndSet(switchOnTimestamp, null)) {
+            LOG.debug("Skipping because switch on state changed meanwhile");
+            return;
+        }
+        try {
+            LOG.info("Switching device off because {}", reason);
+            switchDeviceService.SwitchPowerState(SwitchState.OFF);
+        }
+        catch (RuntimeException ex) {
+            // Keep switch off pending for next round
+            detectedSwitchOnTimestamp.compareAndSet(null, switchOnTimestamp);
+            throw ex;
+        }
+    }
+
 }
@@ -0,0 +1,166 @@
+package com.odin568.schedule;
+
+import com.odin568.service.MotionDetectorService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.ContextClosedEvent;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.Optional;
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Reads the motion detectors with an adaptive rate and pushes the readings to {@link AutoSwitchingService}.
+ * While no switch off is pending, the motion detectors are not read at all.
+ * Once the switch on limit is reached, polling follows the end of the motion window so that
+ * switching off happens within seconds instead of waiting for the next scheduled run.
+ * Runs on its own scheduler thread, so it is not delayed by calendar downloads or reconnects on the shared one.
+ */
+@Service
+public class MotionPollingService
+{
+    private static final Logger LOG = LoggerFactory.getLogger(MotionPollingService.class);
+
+    private final boolean scheduleActivated;
+    private final Duration fastPollInterval;
+    private final Duration slowPollInterval;
+    private final Duration idlePollInterval;
+
+    private volatile Duration nextPollDelay;
+
+    private final ThreadPoolTaskScheduler pollingScheduler = new ThreadPoolTaskScheduler();
+    private ScheduledFuture<?> pollingTask;
+
+    @Autowired
+    private AutoSwitchingService autoSwitchingService;
+
+    @Autowired
+    private MotionDetectorService motionDetectorService;
+
+    public MotionPollingService(@Value("${schedule.fixedDelayMinutes:}") final String fixedDelayMinutes,
+                                @Value("${schedule.motion.fastPollSeconds:10}") long fastPollSeconds,
+                                @Value("${schedule.motion.slowPollSeconds:60}") long slowPollSeconds,
+                                @Value("${schedule.motion.idlePollSeconds:60}") long idlePollSeconds)
+    {
+        if (fastPollSeconds <= 0) {
+            throw new IllegalArgumentException("fastPollSeconds needs to be positive");
+        }
+        if (slowPollSeconds < fastPollSeconds) {
+            throw new IllegalArgumentException("slowPollSeconds is smaller than fastPollSeconds");
+        }
+        if (idlePollSeconds < fastPollSeconds) {
+            throw new IllegalArgumentException("idlePollSeconds is smaller than fastPollSeconds");
+        }
+        this.scheduleActivated = fixedDelayMinutes != null && !fixedDelayMinutes.isBlank();
+        this.fastPollInterval = Duration.ofSeconds(fastPollSeconds);
+        this.slowPollInterval = Duration.ofSeconds(slowPollSeconds);
+        this.idlePollInterval = Duration.ofSeconds(idlePollSeconds);
+        this.nextPollDelay = idlePollInterval;
+    }
+
+    @EventListener(ContextRefreshedEvent.class)
+    private synchronized void StartPolling()
+    {
+        if (!scheduleActivated || autoSwitchingService.GetDefaultMotionMinutes() == 0) {
+            LOG.debug("Motion polling not activated");
+            return;
+        }
+        if (pollingTask != null) {
+            return;
+        }
+        pollingScheduler.setThreadNamePrefix("motion-polling-");
+        pollingScheduler.initialize();
+        pollingTask = pollingScheduler.schedule(this::ScheduledMotionPolling, context -> {
+            Instant lastCompletion = context.lastCompletion();
+            return (lastCompletion != null ? lastCompletion : Instant.now()).plus(nextPollDelay);
+        });
+    }
+
+    /**
+     * Stop polling without interrupting a running poll, its switch command is drained on shutdown.
+     */
+    @EventListener(ContextClosedEvent.class)
+    private synchronized void StopPolling()
+    {
+        if (pollingTask != null) {
+            pollingTask.cancel(false);
+        }
+    }
+
+    @PreDestroy
+    private synchronized void shutdown()
+    {
+        if (pollingTask != null) {
+            pollingScheduler.shutdown();
+        }
+    }
+
+    private void ScheduledMotionPolling()
+    {
+        LOG.debug("Started ScheduledMotionPolling");
+
+        try {
+            nextPollDelay = PollMotion();
+        }
+        catch (RuntimeException ex) {
+            LOG.error("Failed on ScheduledMotionPolling", ex);
+            nextPollDelay = slowPollInterval;
+        }
+
+        LOG.debug("Finished ScheduledMotionPolling, next run in {}", nextPollDelay);
+    }
+
+    private Duration PollMotion()
+    {
+        Optional<LocalDateTime> switchOffTimestamp = autoSwitchingService.GetPendingSwitchOffTimestamp();
+        if (switchOffTimestamp.isEmpty()) {
+            // Switch is off or not yet detected as on, motion does not matter
+            return idlePollInterval;
+        }
+
+        // Motion is only relevant once the switch on limit is reached
+        if (LocalDateTime.now().isBefore(switchOffTimestamp.get())) {
+            return DelayUntil(switchOffTimestamp.get(), idlePollInterval);
+        }
+
+        Optional<LocalDateTime> lastMotionDetected = motionDetectorService.getLastMotionFromMotionDetectors();
+        autoSwitchingService.OnMotionUpdate(lastMotionDetected);
+
+        if (autoSwitchingService.GetPendingSwitchOffTimestamp().isEmpty()) {
+            // Switched off or turned off manually
+            return idlePollInterval;
+        }
+
+        if (lastMotionDetected.isEmpty()) {
+            return slowPollInterval;
+        }
+
+        LocalDateTime motionWindowEnd = lastMotionDetected.get().plusMinutes(autoSwitchingService.GetDefaultMotionMinutes());
+        if (!LocalDateTime.now().isBefore(motionWindowEnd)) {
+            // Window ended but switch off did not happen (active calendar event or failure), do not hammer the FritzBox
+            return slowPollInterval;
+        }
+        return DelayUntil(motionWindowEnd, slowPollInterval);
+    }
+
+    /**
+     * Delay until the given timestamp, but at least the fast interval and at most the given maximum.
+     */
+    private Duration DelayUntil(LocalDateTime timestamp, Duration maxDelay)
+    {
+        Duration delay = Duration.between(LocalDateTime.now(), timestamp);
+        if (delay.compareTo(fastPollInterval) < 0) {
+            return fastPollInterval;
+        }
+        return delay.compareTo(maxDelay) > 0 ? maxDelay : delay;
+    }
+}
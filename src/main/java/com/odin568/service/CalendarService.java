@@ -15,7 +15,7 @@ import org.springframework.stereotype.Service;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.net.URI;
-import java.net.URL;
+import java.net.URLConnection;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.temporal.ChronoUnit;
@@ -25,6 +25,7 @@ import java.util.*;
 public class CalendarService implements HealthIndicator
 {
     private static final Logger LOG = LoggerFactory.getLogger(CalendarService.class);
+    private static final int CONNECTION_TIMEOUT_MILLIS = 10000;
     private final String icsUrl;
     private ICalendar cachedCalendar;
     private boolean forceUpdateOfCalendarOnNextRun = false;
@@ -102,8 +103,11 @@ public class CalendarService implements HealthIndicator
             try {
                 LOG.debug("Started updating calendar ics");
                 StringBuilder buffer = new StringBuilder();
-                URL url = new URI(icsUrl).toURL();
-                try (BufferedReader reader = new BufferedReader(new InputStreamReader(url.openStream()))) {
+                URLConnection connection = new URI(icsUrl).toURL().openConnection();
+                // Callers wait on this while deciding on switching, so never hang on an unresponsive host
+                connection.setConnectTimeout(CONNECTION_TIMEOUT_MILLIS);
+                connection.setReadTimeout(CONNECTION_TIMEOUT_MILLIS);
+                try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream()))) {
                     String temp;
                     while ((temp = reader.readLine()) != null) {
                         buffer
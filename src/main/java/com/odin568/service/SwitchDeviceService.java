@@ -3,6 +3,7 @@ package com.odin568.service;
 import com.github.kaklakariada.fritzbox.FritzBoxException;
 import com.odin568.connection.FritzBoxSession;
 import com.odin568.helper.SwitchState;
+import com.odin568.tracing.SwitchTracing;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -12,6 +13,8 @@ import org.springframework.boot.health.contributor.HealthIndicator;
 import org.springframework.stereotype.Service;
 import jakarta.annotation.PostConstruct;
 
+import java.time.Duration;
+
 @Service
 public class SwitchDeviceService implements HealthIndicator
 {
@@ -19,12 +22,19 @@ public class SwitchDeviceService implements HealthIndicator
     private final String switchId;
 
     private final FritzBoxSession fritzBoxSession;
+    private final SwitchTracing tracing;
+
+    private final Object commandMonitor = new Object();
+    private boolean acceptingCommands = true;
+    private int inFlightCommands = 0;
 
     @Autowired
     public SwitchDeviceService(final FritzBoxSession fritzBoxSession,
+                               final SwitchTracing tracing,
                                @Value("${fritzbox.switchid}") Long switchId)
     {
         this.fritzBoxSession = fritzBoxSession;
+        this.tracing = tracing;
         this.switchId = String.valueOf(switchId);
     }
 
@@ -50,33 +60,89 @@ public class SwitchDeviceService implements HealthIndicator
 
     public SwitchState SwitchPowerState(final SwitchState targetState)
     {
-        LOG.info("Started switching to mode " + targetState);
-
+        synchronized (commandMonitor) {
+            if (!acceptingCommands) {
+                throw new IllegalStateException("Shutting down, not accepting switch commands");
+            }
+            inFlightCommands++;
+        }
         try {
-            fritzBoxSession.validateSwitchDevice(switchId);
-
-            fritzBoxSession.switchDevice(switchId, targetState);
-
-            // It can take some time until state is reflected properly
-            Thread.sleep(1000);
-
-            SwitchState newState = fritzBoxSession.getDeviceState(switchId);
-
-            if (targetState != SwitchState.TOGGLE && newState != targetState)
-                throw new FritzBoxException("Switching power state " + targetState + " failed");
-
-            LOG.info("Finished switching to mode " + targetState);
-            return newState;
+            return ExecuteSwitchPowerState(targetState);
         }
-        catch (InterruptedException ex) {
-            throw new RuntimeException(ex);
+        finally {
+            synchronized (commandMonitor) {
+                inFlightCommands--;
+                commandMonitor.notifyAll();
+            }
         }
-        catch (RuntimeException ex) {
-            LOG.error("Failed switching power state", ex);
-            throw ex;
+    }
+
+    /**
+     * Reject all further switch commands. Already running commands are not affected.
+     */
+    public void StopAcceptingCommands()
+    {
+        synchronized (commandMonitor) {
+            acceptingCommands = false;
         }
     }
 
+    /**
+     * Wait until all running switch commands are finished.
+     * @param timeout maximum time to wait
+     * @return true if all commands finished, false if timeout elapsed before
+     */
+    public boolean AwaitInFlightCommands(final Duration timeout) throws InterruptedException
+    {
+        long deadline = System.nanoTime() + timeout.toNanos();
+        synchronized (commandMonitor) {
+            while (inFlightCommands > 0) {
+                long remainingMillis = (deadline - System.nanoTime()) / 1_000_000;
+                if (remainingMillis <= 0) {
+                    LOG.warn("{} switch commands still running", inFlightCommands);
+                    return false;
+                }
+                commandMonitor.wait(remainingMillis);
+            }
+            return true;
+        }
+    }
+
+    private SwitchState ExecuteSwitchPowerState(final SwitchState targetState)
+    {
+        return tracing.call("SwitchDeviceService.SwitchPowerState " + targetState, () -> {
+            LOG.info("Started switching to mode " + targetState);
+
+            try {
+                fritzBoxSession.validateSwitchDevice(switchId);
+
+                fritzBoxSession.switchDevice(switchId, targetState);
+
+                SwitchState newState = tracing.call("SwitchDeviceService confirmation", () -> {
+                    try {
+                        // It can take some time until state is reflected properly
+                        Thread.sleep(1000);
+                    }
+                    catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        throw new FritzBoxException("Interrupted while confirming power state " + targetState);
+                    }
+                    return fritzBoxSession.getDeviceState(switchId);
+                });
+
+                if (targetState != SwitchState.TOGGLE && newState != targetState)
+                    throw new FritzBoxException("Switching power state " + targetState + " failed");
+
+                LOG.info("Finished switching to mode " + targetState);
+                return newState;
+            }
+            catch (RuntimeException ex) {
+                LOG.error("Failed switching power state", ex);
+                throw ex;
+            }
+        });
+    }
+
     @Override
     public Health health() {
         try {
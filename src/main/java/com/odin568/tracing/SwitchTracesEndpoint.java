@@ -0,0 +1,34 @@
+package com.odin568.tracing;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+@Component
+@Endpoint(id = "switchtraces")
+public class SwitchTracesEndpoint
+{
+    private final TraceStore traceStore;
+    private final int defaultCount;
+
+    public SwitchTracesEndpoint(final TraceStore traceStore,
+                                @Value("${tracing.slowestCount:10}") int defaultCount)
+    {
+        this.traceStore = traceStore;
+        this.defaultCount = defaultCount;
+    }
+
+    @ReadOperation
+    public List<TraceStore.Trace> slowestTraces() {
+        return traceStore.getSlowestTraces(defaultCount);
+    }
+
+    @ReadOperation
+    public List<TraceStore.Trace> slowestTracesLimited(@Selector int count) {
+        return traceStore.getSlowestTraces(count);
+    }
+}
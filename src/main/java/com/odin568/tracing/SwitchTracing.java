@@ -0,0 +1,108 @@
+package com.odin568.tracing;
+
+import io.opentelemetry.api.trace.Span;
+import io.opentelemetry.api.trace.StatusCode;
+import io.opentelemetry.api.trace.Tracer;
+import io.opentelemetry.context.Scope;
+import io.opentelemetry.sdk.trace.SdkTracerProvider;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PreDestroy;
+import java.util.function.Supplier;
+
+/**
+ * Creates OpenTelemetry spans which are recorded in the in-memory {@link TraceStore}.
+ * No exporter is configured, so tracing works without any collector.
+ */
+@Component
+public class SwitchTracing
+{
+    private final SdkTracerProvider tracerProvider;
+    private final Tracer tracer;
+
+    public SwitchTracing(final TraceStore traceStore)
+    {
+        this.tracerProvider = SdkTracerProvider.builder()
+                .addSpanProcessor(traceStore)
+                .build();
+        this.tracer = tracerProvider.get("com.odin568");
+    }
+
+    @PreDestroy
+    private void shutdown() {
+        tracerProvider.shutdown();
+    }
+
+    /**
+     * Start a span as child of the current one. Caller is responsible to end it.
+     */
+    public Span startSpan(final String name)
+    {
+        return tracer.spanBuilder(name).startSpan();
+    }
+
+    /**
+     * Start a span as child of the current one, but only if there is one. Caller is responsible to end it.
+     * Avoids recording standalone traces for calls outside a switch request, e.g. health checks or polling.
+     */
+    public Span startNestedSpan(final String name)
+    {
+        return IsTracing() ? startSpan(name) : Span.getInvalid();
+    }
+
+    /**
+     * Run the given action within a new span and return its result.
+     */
+    public <T> T call(final String name, final Supplier<T> action)
+    {
+        Span span = startSpan(name);
+        try (Scope ignored = span.makeCurrent()) {
+            return action.get();
+        }
+        catch (RuntimeException ex) {
+            span.recordException(ex);
+            span.setStatus(StatusCode.ERROR, ex.getMessage() != null ? ex.getMessage() : ex.getClass().getSimpleName());
+            throw ex;
+        }
+        finally {
+            span.end();
+        }
+    }
+
+    /**
+     * Run the given action within a new span.
+     */
+    public void run(final String name, final Runnable action)
+    {
+        call(name, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    /**
+     * Run the given action within a new span if a trace is active, otherwise just run it.
+     */
+    public <T> T callNested(final String name, final Supplier<T> action)
+    {
+        return IsTracing() ? call(name, action) : action.get();
+    }
+
+    /**
+     * Run the given action within a new span if a trace is active, otherwise just run it.
+     */
+    public void runNested(final String name, final Runnable action)
+    {
+        if (IsTracing()) {
+            run(name, action);
+        }
+        else {
+            action.run();
+        }
+    }
+
+    private static boolean IsTracing()
+    {
+        return Span.current().getSpanContext().isValid();
+    }
+}
@@ -0,0 +1,107 @@
+package com.odin568.tracing;
+
+import io.opentelemetry.context.Context;
+import io.opentelemetry.sdk.trace.ReadWriteSpan;
+import io.opentelemetry.sdk.trace.ReadableSpan;
+import io.opentelemetry.sdk.trace.SpanProcessor;
+import io.opentelemetry.sdk.trace.data.SpanData;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * Span processor keeping the most recent finished traces in memory.
+ * A trace is considered finished as soon as its root span ends.
+ */
+@Component
+public class TraceStore implements SpanProcessor
+{
+    public record TraceSpan(String spanId, String parentSpanId, String name, Instant start, double durationMillis,
+                            String status, Map<String, String> attributes) { }
+
+    public record Trace(String traceId, String name, Instant start, double durationMillis, List<TraceSpan> spans) { }
+
+    private final int maxTraces;
+
+    private final Deque<Trace> recentTraces = new ArrayDeque<>();
+
+    private final Map<String, List<TraceSpan>> pendingSpans;
+
+    public TraceStore(@Value("${tracing.maxTraces:500}") int maxTraces)
+    {
+        if (maxTraces <= 0) {
+            throw new IllegalArgumentException("maxTraces needs to be positive");
+        }
+        this.maxTraces = maxTraces;
+        // Spans whose root never ends must not pile up
+        this.pendingSpans = new LinkedHashMap<>() {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<TraceSpan>> eldest) {
+                return size() > maxTraces;
+            }
+        };
+    }
+
+    @Override
+    public void onStart(Context parentContext, ReadWriteSpan span) { }
+
+    @Override
+    public boolean isStartRequired() {
+        return false;
+    }
+
+    @Override
+    public synchronized void onEnd(ReadableSpan span)
+    {
+        SpanData data = span.toSpanData();
+        TraceSpan traceSpan = toTraceSpan(data);
+        List<TraceSpan> spans = pendingSpans.computeIfAbsent(data.getTraceId(), id -> new ArrayList<>());
+        spans.add(traceSpan);
+
+        if (data.getParentSpanContext().isValid()) {
+            return;
+        }
+
+        pendingSpans.remove(data.getTraceId());
+        spans.sort(Comparator.comparing(TraceSpan::start));
+        recentTraces.addLast(new Trace(data.getTraceId(), data.getName(), traceSpan.start(), traceSpan.durationMillis(), List.copyOf(spans)));
+        while (recentTraces.size() > maxTraces) {
+            recentTraces.removeFirst();
+        }
+    }
+
+    @Override
+    public boolean isEndRequired() {
+        return true;
+    }
+
+    /**
+     * Get the slowest traces out of the recently recorded ones.
+     * @param count maximum number of traces to return
+     * @return traces ordered by duration, slowest first
+     */
+    public synchronized List<Trace> getSlowestTraces(int count)
+    {
+        return recentTraces.stream()
+                .sorted(Comparator.comparingDouble(Trace::durationMillis).reversed())
+                .limit(Math.max(count, 0))
+                .toList();
+    }
+
+    private static TraceSpan toTraceSpan(SpanData data)
+    {
+        Map<String, String> attributes = new TreeMap<>();
+        data.getAttributes().forEach((key, value) -> attributes.put(key.getKey(), String.valueOf(value)));
+
+        return new TraceSpan(
+                data.getSpanId(),
+                data.getParentSpanContext().isValid() ? data.getParentSpanId() : null,
+                data.getName(),
+                Instant.ofEpochSecond(0, data.getStartEpochNanos()),
+                (data.getEndEpochNanos() - data.getStartEpochNanos()) / 1_000_000d,
+                data.getStatus().getStatusCode().name(),
+                attributes);
+    }
+}